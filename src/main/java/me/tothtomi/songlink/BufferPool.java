@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 TOTHTOMI
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.tothtomi.songlink;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pool of the buffers used to read the responses of Songlink's API, so they are not allocated again for each request.
+ * <br /><br />
+ * Byte buffers have a fixed size, and are heap buffers, because the responses are read from an {@link java.io.InputStream} into their backing arrays.
+ * Char buffers hold a whole decoded response, they start at the same size and grow when a response does not fit, the grown ones are kept in the pool.
+ * UTF-8 decoders are pooled as well, as they are not thread-safe.
+ *
+ * @author TOTHTOMI
+ */
+public final class BufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> buffers;
+    private final BlockingQueue<CharBuffer> charBuffers;
+    private final BlockingQueue<CharsetDecoder> decoders;
+
+    /**
+     * @param bufferSize the capacity of a single byte buffer, and the initial capacity of a char buffer
+     * @param maxPooled the maximum amount of idle buffers (of each kind) kept in the pool
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+        this.charBuffers = new ArrayBlockingQueue<>(maxPooled);
+        this.decoders = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Takes an empty buffer from the pool, or allocates a new one if the pool is empty.
+     *
+     * @return the buffer, ready for writing
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. If the pool is full, the buffer is left for the garbage collector.
+     *
+     * @param buffer the buffer, which must not be used after this call
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !buffer.hasArray()) return;
+
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    /**
+     * Takes an empty char buffer from the pool, or allocates a new one if the pool is empty.
+     *
+     * @return the buffer, ready for writing (its capacity may be larger than the buffer size)
+     */
+    public CharBuffer acquireChars() {
+        CharBuffer buffer = charBuffers.poll();
+        return buffer != null ? buffer : CharBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Returns a char buffer to the pool. If the pool is full, the buffer is left for the garbage collector.
+     *
+     * @param buffer the buffer, which must not be used after this call
+     */
+    public void releaseChars(CharBuffer buffer) {
+        if (buffer.capacity() < bufferSize || !buffer.hasArray()) return;
+
+        buffer.clear();
+        charBuffers.offer(buffer);
+    }
+
+    /**
+     * Takes a UTF-8 decoder from the pool, or creates a new one if the pool is empty.
+     * Malformed input is replaced, the same way {@link java.io.InputStreamReader} does.
+     *
+     * @return the decoder, ready for decoding
+     */
+    public CharsetDecoder acquireDecoder() {
+        CharsetDecoder decoder = decoders.poll();
+        if (decoder != null) return decoder.reset();
+
+        return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Returns a decoder to the pool.
+     *
+     * @param decoder the decoder, which must not be used after this call
+     */
+    public void releaseDecoder(CharsetDecoder decoder) {
+        decoders.offer(decoder);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 TOTHTOMI
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.tothtomi.songlink;
+
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import me.tothtomi.songlink.track.Track;
+
+/**
+ * Listener for changes of the {@link Songlink} cache, registered with {@link Songlink#addListener(CacheListener)}.
+ * The keys are the encoded URIs the tracks were searched with. All methods are optional.
+ * <br /><br />
+ * Evictions are reported asynchronously by the cache, loads and refreshes on the thread which did them.
+ * Exceptions thrown by a listener are logged and ignored, they do not affect the operation or the other listeners.
+ *
+ * @author TOTHTOMI
+ */
+public interface CacheListener {
+
+    /**
+     * Called after a track was fetched from Songlink's API or imported from a snapshot, and put into the cache.
+     *
+     * @param key the key of the entry
+     * @param track the loaded track
+     */
+    default void onLoad(String key, Track track) {
+    }
+
+    /**
+     * Called after an entry was removed from the cache, because it was invalidated, expired or the cache was full.
+     *
+     * @param key the key of the entry
+     * @param track the removed track
+     * @param cause why the entry was removed ({@link RemovalCause#EXPLICIT} if it was invalidated)
+     */
+    default void onEvict(String key, Track track, RemovalCause cause) {
+    }
+
+    /**
+     * Called after an entry was replaced with a freshly fetched track by {@link Songlink#refresh(String)}
+     * (the other URIs of the entity are evicted instead),
+     * or with the track of a snapshot by {@link Songlink#importSnapshot(org.json.JSONArray)}.
+     *
+     * @param key the key of the entry
+     * @param oldTrack the track previously cached
+     * @param newTrack the new track
+     */
+    default void onRefresh(String key, Track oldTrack, Track newTrack) {
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 TOTHTOMI
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.tothtomi.songlink;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * The UTF-8 decoded body of a response, stored in a char buffer borrowed from a {@link BufferPool}.
+ * It must be closed after use, to return the buffer to the pool.
+ *
+ * @author TOTHTOMI
+ */
+public final class ResponseBody implements AutoCloseable {
+
+    private final BufferPool pool;
+    private CharBuffer chars;
+
+    private ResponseBody(BufferPool pool, CharBuffer chars) {
+        this.pool = pool;
+        this.chars = chars;
+    }
+
+    /**
+     * Reads the whole stream, decoding it from a pooled byte buffer straight into a pooled char buffer. The stream is not closed.
+     *
+     * @param inputStream the stream to read
+     * @param pool the pool to borrow the buffers from
+     * @return the body
+     * @throws IOException if the stream could not be read (the buffers are returned to the pool)
+     */
+    public static ResponseBody read(InputStream inputStream, BufferPool pool) throws IOException {
+        ByteBuffer bytes = pool.acquire();
+        CharBuffer chars = pool.acquireChars();
+        CharsetDecoder decoder = pool.acquireDecoder();
+
+        try {
+            boolean endOfInput = false;
+
+            while (!endOfInput) {
+                int read = inputStream.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                if (read == -1) endOfInput = true;
+                else bytes.position(bytes.position() + read);
+
+                bytes.flip();
+                chars = decode(decoder, bytes, chars, endOfInput);
+                // Keeping the bytes of a character split between two reads
+                bytes.compact();
+            }
+
+            while (decoder.flush(chars).isOverflow()) chars = grow(chars);
+
+            chars.flip();
+            return new ResponseBody(pool, chars);
+        } catch (IOException | RuntimeException e) {
+            pool.releaseChars(chars);
+            throw e;
+        } finally {
+            pool.release(bytes);
+            pool.releaseDecoder(decoder);
+        }
+    }
+
+    private static CharBuffer decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+
+            if (result.isOverflow()) chars = grow(chars);
+            else if (result.isError()) result.throwException();
+            else return chars;
+        }
+    }
+
+    /**
+     * Doubles the char buffer. The smaller buffer is dropped, so the grown one is the one going back to the pool.
+     */
+    private static CharBuffer grow(CharBuffer chars) {
+        CharBuffer grown = CharBuffer.allocate(chars.capacity() * 2);
+        chars.flip();
+        grown.put(chars);
+
+        return grown;
+    }
+
+    /**
+     * @return the length of the body in chars
+     */
+    public int size() {
+        return chars.remaining();
+    }
+
+    /**
+     * Creates a reader reading directly from the pooled char buffer, without copying it.
+     * The reader supports marking, so parsers do not need to wrap it into a {@link java.io.BufferedReader}.
+     *
+     * @return the reader, which must not be used after the body is closed
+     */
+    public Reader reader() {
+        return new CharArrayReader(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+    }
+
+    /**
+     * Returns the buffer to the pool. The body must not be used after this call.
+     */
+    @Override
+    public void close() {
+        if (chars == null) return;
+
+        pool.releaseChars(chars);
+        chars = null;
+    }
+}
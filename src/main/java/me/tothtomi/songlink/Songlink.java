@@ -26,23 +26,33 @@ package me.tothtomi.songlink;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import me.tothtomi.songlink.enums.APIProvider;
 import me.tothtomi.songlink.enums.Platform;
+import me.tothtomi.songlink.limit.ConcurrencyLimiter;
+import me.tothtomi.songlink.limit.LimitExceededException;
 import me.tothtomi.songlink.track.PlatformTrack;
 import me.tothtomi.songlink.track.Track;
 import me.tothtomi.songlink.track.meta.Links;
 import me.tothtomi.songlink.track.meta.Metadata;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Java wrapper for Songlink's API.
@@ -58,22 +68,37 @@ import java.util.function.Consumer;
 public class Songlink {
 
     private static final ExecutorService executorService = Executors.newCachedThreadPool();
+    private static final BufferPool bufferPool = new BufferPool(16 * 1024, 64);
+    private static final System.Logger logger = System.getLogger(Songlink.class.getName());
 
     private final String countryCode;
     private final String apiKey;
     private final String userAgent;
 
     private final Cache<String, Track> cache;
+    private final ConcurrencyLimiter limiter;
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final List<CacheListener> listeners = new CopyOnWriteArrayList<>();
 
-    protected Songlink(String countryCode, String apiKey, long cacheMaxSize, Duration cacheExpire, String userAgent) {
+    protected Songlink(String countryCode, String apiKey, long cacheMaxSize, Duration cacheExpire, String userAgent,
+                       ConcurrencyLimiter limiter, Duration connectTimeout, Duration readTimeout) {
         this.countryCode = countryCode;
         this.apiKey = apiKey;
         this.userAgent = userAgent;
+        this.limiter = limiter;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
 
         this.cache = Caffeine.newBuilder()
                 .initialCapacity(100)
                 .maximumSize(cacheMaxSize)
                 .expireAfterAccess(cacheExpire)
+                .removalListener((String key, Track track, RemovalCause cause) -> {
+                    // Replacements are reported by put(), with the new track as well
+                    if (cause == RemovalCause.REPLACED) return;
+                    notifyListeners(listener -> listener.onEvict(key, track, cause));
+                })
                 .build();
     }
 
@@ -83,7 +108,7 @@ public class Songlink {
      *
      * @param uri the URI to search for. (Will be encoded automatically)
      * @param onSuccess if the search was completed successfully. The consumer will contain the resulting {@link Track}
-     * @param onError if something went bad. It will contain the error thrown.
+     * @param onError if something went bad. It will contain the error thrown. ({@link LimitExceededException} if the request was rejected)
      */
     public void search(String uri, Consumer<Track> onSuccess, Consumer<Exception> onError) {
         String url = URLEncoder.encode(uri, StandardCharsets.UTF_8);
@@ -103,26 +128,284 @@ public class Songlink {
      *
      * @param uri the URI to search for. (Will be encoded automatically)
      * @return the resulting {@link Track} (will never be null)
+     * @throws LimitExceededException if too many requests are in-flight to Songlink's API
      * @throws Exception if something goes bad
      */
     public Track search(String uri) throws Exception {
         String url = URLEncoder.encode(uri, StandardCharsets.UTF_8);
-        return cache.get(url, u -> {
-            JSONObject web;
+        boolean[] loaded = {false};
 
+        Track track = cache.get(url, u -> {
+            loaded[0] = true;
+            return load(u);
+        });
+
+        if (loaded[0]) notifyListeners(listener -> listener.onLoad(url, track));
+        return track;
+    }
+
+    /**
+     * Fetches the track again from Songlink's API, and replaces the cached entry of the URI with it.
+     * Every other cached URI of the same entity is invalidated, and loads its own response on the next access,
+     * as the top-level entity and page of a track depend on the URI it was searched with.
+     * Useful when the metadata of a track has changed. This is an async method, which calls {@link ExecutorService}.
+     *
+     * @param uri the URI to refresh (Will be encoded automatically)
+     * @return the future completed with the new {@link Track}, or completed exceptionally if something goes bad
+     * @see CacheListener#onRefresh(String, Track, Track)
+     */
+    public CompletableFuture<Track> refresh(String uri) {
+        String url = URLEncoder.encode(uri, StandardCharsets.UTF_8);
+
+        return CompletableFuture.supplyAsync(() -> {
+            Track track = load(url);
+            Track old = cache.getIfPresent(url);
+            put(url, track);
+
+            cache.asMap().entrySet().removeIf(entry -> {
+                if (entry.getKey().equals(url)) return false;
+
+                Track cached = entry.getValue();
+                return cached.isEntity(track.getEntityUniqueId()) || (old != null && cached.isEntity(old.getEntityUniqueId()));
+            });
+
+            return track;
+        }, executorService);
+    }
+
+    /**
+     * Removes the track of the URI from the cache, together with every other URI resolved to the same entity.
+     *
+     * @param uri the URI to invalidate (Will be encoded automatically)
+     * @return the amount of entries removed
+     */
+    public int invalidate(String uri) {
+        String url = URLEncoder.encode(uri, StandardCharsets.UTF_8);
+        Track track = cache.getIfPresent(url);
+        if (track == null) return 0;
+
+        return invalidateEntity(track.getEntityUniqueId());
+    }
+
+    /**
+     * Removes every cached track of the entity, whether it is the entity of the whole track or of one of its platforms.
+     *
+     * @param entityUniqueId the id of the entity (ex. "SPOTIFY_SONG::0Jcij1eWd5bDMU5iPbxe2i")
+     * @return the amount of entries removed
+     */
+    public int invalidateEntity(String entityUniqueId) {
+        return invalidateIf(track -> track.isEntity(entityUniqueId));
+    }
+
+    /**
+     * Removes every cached track, which has the specified id on the platform.
+     *
+     * @param platform the platform
+     * @param id the id of the track on the platform
+     * @return the amount of entries removed
+     */
+    public int invalidate(Platform platform, String id) {
+        return invalidateIf(track -> track.getPlatform(platform)
+                .map(platformTrack -> platformTrack.getMetadata().getId().equals(id))
+                .orElse(false));
+    }
+
+    /**
+     * Removes the matching tracks from the cache. This iterates the whole cache, which is fine at the sizes it is used with.
+     */
+    private int invalidateIf(Predicate<Track> predicate) {
+        int[] removed = {0};
+        cache.asMap().entrySet().removeIf(entry -> {
+            if (!predicate.test(entry.getValue())) return false;
+
+            removed[0]++;
+            return true;
+        });
+
+        return removed[0];
+    }
+
+    /**
+     * Registers a listener for the changes of the cache.
+     *
+     * @param listener the listener
+     */
+    public void addListener(CacheListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener registered with {@link #addListener(CacheListener)}.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(CacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Puts the track into the cache, notifying the listeners of the load, or the refresh if an entry was replaced.
+     */
+    private void put(String key, Track track) {
+        Track old = cache.asMap().put(key, track);
+
+        if (old == null) notifyListeners(listener -> listener.onLoad(key, track));
+        else notifyListeners(listener -> listener.onRefresh(key, old, track));
+    }
+
+    /**
+     * Calls every listener. A failing listener is logged, and does not stop the others or the operation notifying them.
+     */
+    private void notifyListeners(Consumer<CacheListener> event) {
+        for (CacheListener listener : listeners) {
             try {
-                web = getResponseFromSonglink(u);
-            } catch (IOException e) {
-                // We are mapping it to a runtime exception, the cache will automatically throw this
-                throw new RuntimeException(e);
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                logger.log(System.Logger.Level.WARNING, "Cache listener " + listener + " threw an exception", e);
             }
+        }
+    }
+
+    /**
+     * Fetches the track from Songlink's API, without using the cache.
+     *
+     * @param url the encoded URI
+     * @return the resulting {@link Track}
+     */
+    private Track load(String url) {
+        JSONObject web;
+
+        try {
+            web = getResponseFromSonglink(url);
+        } catch (IOException e) {
+            // We are mapping it to a runtime exception, the cache will automatically throw this
+            throw new RuntimeException(e);
+        }
 
-            String entityUniqueId = web.getString("entityUniqueId");
-            String userCountry = web.getString("userCountry");
-            String pageUrl = web.getString("pageUrl");
+        String entityUniqueId = web.getString("entityUniqueId");
+        String userCountry = web.getString("userCountry");
+        String pageUrl = web.getString("pageUrl");
 
-            return new Track(entityUniqueId, userCountry, pageUrl, getPlatforms(web));
-        });
+        return new Track(entityUniqueId, userCountry, pageUrl, getPlatforms(web));
+    }
+
+    /**
+     * Fetches Songlink API and parses the data into a {@link Track} object.
+     * Cached tracks are returned immediately with an already completed future, otherwise the search runs on the {@link ExecutorService}.
+     *
+     * @param uri the URI to search for. (Will be encoded automatically)
+     * @return the future completed with the resulting {@link Track}, or completed exceptionally if something goes bad
+     */
+    public CompletableFuture<Track> searchAsync(String uri) {
+        Track cached = cache.getIfPresent(URLEncoder.encode(uri, StandardCharsets.UTF_8));
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return search(uri);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executorService);
+    }
+
+    /**
+     * Creates a snapshot of the cache, which can be later loaded with {@link #importSnapshot(JSONArray)}.
+     * The entries are ordered from the hottest to the coldest, as seen by the cache's eviction policy.
+     *
+     * @param limit the maximum amount of entries in the snapshot
+     * @return the snapshot, each element containing the cache "key" and the compact "track"
+     * @see Track#toJson()
+     */
+    public JSONArray exportSnapshot(int limit) {
+        Map<String, Track> entries = cache.policy().eviction()
+                .map(eviction -> eviction.hottest(limit))
+                .orElseGet(() -> cache.asMap());
+
+        JSONArray snapshot = new JSONArray();
+        for (Map.Entry<String, Track> entry : entries.entrySet()) {
+            if (snapshot.length() >= limit) break;
+
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("key", entry.getKey());
+            jsonObject.put("track", entry.getValue().toJson());
+            snapshot.put(jsonObject);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Loads a snapshot created by {@link #exportSnapshot(int)} into the cache.
+     * Entries already in the cache are overwritten, the listeners are notified the same way as by {@link #refresh(String)}. Only the hottest entries fitting in the cache are loaded.
+     *
+     * @param snapshot the snapshot
+     * @return the amount of entries loaded
+     */
+    public int importSnapshot(JSONArray snapshot) {
+        long maximum = cache.policy().eviction()
+                .map(eviction -> eviction.getMaximum())
+                .orElse(Long.MAX_VALUE);
+        int count = (int) Math.min(snapshot.length(), maximum);
+
+        // Inserting from the coldest to the hottest, so the hottest entries end up as the most recent ones
+        for (int i = count - 1; i >= 0; i--) {
+            JSONObject jsonObject = snapshot.getJSONObject(i);
+            put(jsonObject.getString("key"), Track.fromJson(jsonObject.getJSONObject("track")));
+        }
+
+        return count;
+    }
+
+    /**
+     * Loads the URIs not yet in the cache in the background, one by one.
+     * Warmup is throttled, it waits the specified interval between requests, and backs off while the API
+     * is busy with live traffic (half of the concurrency limit is in use). URIs rejected by the concurrency limiter
+     * are retried, failed URIs are skipped.
+     *
+     * @param uris the URIs to load, ideally ordered by popularity
+     * @param interval the time to wait between requests (must be positive)
+     * @return a future completed with the amount of URIs loaded when the warmup is done
+     */
+    public CompletableFuture<Integer> preload(Collection<String> uris, Duration interval) {
+        if (interval.toMillis() <= 0) throw new IllegalArgumentException("Preload interval must be at least 1 millisecond.");
+
+        List<String> missing = new ArrayList<>();
+        for (String uri : uris) {
+            if (cache.getIfPresent(URLEncoder.encode(uri, StandardCharsets.UTF_8)) == null) missing.add(uri);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            int loaded = 0;
+
+            for (String uri : missing) {
+                try {
+                    while (true) {
+                        do {
+                            Thread.sleep(interval.toMillis());
+                        } while (limiter.getInFlight() * 2 >= limiter.getLimit());
+
+                        // It may have been loaded by live traffic in the meantime
+                        if (cache.getIfPresent(URLEncoder.encode(uri, StandardCharsets.UTF_8)) != null) break;
+
+                        try {
+                            search(uri);
+                            loaded++;
+                            break;
+                        } catch (LimitExceededException ignored) {
+                            // The limit filled up since the check, backing off and retrying the same URI
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception ignored) {
+                    // Preloading is best effort, skipping the URIs which failed
+                }
+            }
+
+            return loaded;
+        }, executorService);
     }
 
     private Map<Platform, PlatformTrack> getPlatforms(JSONObject web) {
@@ -163,10 +446,12 @@ public class Songlink {
 
     /**
      * Method responsible for actually calling the API.
+     * The call is guarded by the {@link ConcurrencyLimiter}, excess requests are rejected before reaching the API.
      *
      * @param url the raw URL
      * @return the {@link JSONObject} parsed from the response of the API
      * @throws IOException if something goes bad
+     * @throws LimitExceededException if too many requests are in-flight
      */
     private JSONObject getResponseFromSonglink(String url) throws IOException {
         String apiUrl = String.format("https://api.song.link/v1-alpha.1/links?url=%s&userCountry=%s", url, countryCode);
@@ -174,7 +459,40 @@ public class Songlink {
             apiUrl += ("&key" + apiKey);
         }
 
-        return new JSONObject(Utilities.readWebsite(apiUrl, this.userAgent));
+        long startTime = limiter.acquire();
+        ResponseBody response;
+
+        try {
+            response = Utilities.fetch(apiUrl, this.userAgent, connectTimeout, readTimeout, bufferPool);
+        } catch (IOException | RuntimeException e) {
+            if (isOverloaded(e)) limiter.onDropped();
+            else limiter.onIgnored();
+
+            throw e;
+        }
+
+        limiter.onSuccess(startTime);
+
+        // Parsing straight from the pooled char buffer, which is returned to the pool afterwards
+        try (response) {
+            return new JSONObject(new JSONTokener(response.reader()));
+        }
+    }
+
+    /**
+     * Whether the failure signals that Songlink's API is overloaded, and the limiter should back off.
+     * Client errors (ex. invalid links) and DNS failures say nothing about the load of the API.
+     */
+    private static boolean isOverloaded(Exception e) {
+        if (e instanceof HttpStatusException) return ((HttpStatusException) e).isServerError();
+        return e instanceof SocketTimeoutException || e instanceof SocketException;
+    }
+
+    /**
+     * @return the {@link ConcurrencyLimiter} guarding the calls to Songlink's API
+     */
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
     }
 
     /**
@@ -199,6 +517,10 @@ public class Songlink {
         private long cacheMaxSize = 500;
         private Duration cacheExpire = Duration.ofHours(2);
 
+        private int maxConcurrency = 100;
+        private Duration connectTimeout = Duration.ofSeconds(5);
+        private Duration readTimeout = Duration.ofSeconds(10);
+
         /**
          * Two-letter country code. Specifies the country/location Songlink uses when searching streaming catalogs. Optional (default to US).
          *
@@ -258,6 +580,50 @@ public class Songlink {
             return this;
         }
 
+        /**
+         * The maximum amount of requests sent to Songlink's API at the same time.
+         * The actual limit adapts to the latency of the API, but will never go above this.
+         * Requests over the limit will fail with a {@link LimitExceededException}.
+         * Default is: 100.
+         *
+         * @param maxConcurrency the maximum amount of in-flight requests
+         * @return the {@link Builder} for chaining
+         * @see ConcurrencyLimiter
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            if (maxConcurrency < 1) throw new IllegalArgumentException("Max concurrency must be at least 1.");
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * The maximum time to wait for the connection to Songlink's API to be established.
+         * Timeouts are treated as a sign of overload, and decrease the concurrency limit.
+         * Default is: 5 seconds.
+         *
+         * @param timeout the timeout
+         * @return the {@link Builder} for chaining
+         */
+        public Builder connectTimeout(Duration timeout) {
+            if (timeout.isNegative() || timeout.isZero()) throw new IllegalArgumentException("Connect timeout must be positive.");
+            this.connectTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * The maximum time to wait for data from Songlink's API, once connected.
+         * Timeouts are treated as a sign of overload, and decrease the concurrency limit.
+         * Default is: 10 seconds.
+         *
+         * @param timeout the timeout
+         * @return the {@link Builder} for chaining
+         */
+        public Builder readTimeout(Duration timeout) {
+            if (timeout.isNegative() || timeout.isZero()) throw new IllegalArgumentException("Read timeout must be positive.");
+            this.readTimeout = timeout;
+            return this;
+        }
+
         /**
          * Builds and returns the songlink instance.
          * It should be considered as a singleton, do not create more unless necessary (ex. other api keys)
@@ -265,7 +631,8 @@ public class Songlink {
          * @return the {@link Songlink} instance
          */
         public Songlink build() {
-            return new Songlink(countryCode, apiKey, cacheMaxSize, cacheExpire, userAgent);
+            return new Songlink(countryCode, apiKey, cacheMaxSize, cacheExpire, userAgent,
+                    ConcurrencyLimiter.withMaximum(maxConcurrency), connectTimeout, readTimeout);
         }
     }
 }
@@ -28,9 +28,13 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
 
 public final class Utilities {
 
@@ -72,4 +76,100 @@ public final class Utilities {
             }
         }
     }
+
+    /**
+     * Fetches the given URL and reads the body into buffers borrowed from the pool.
+     * Gzip compressed responses are requested, and decompressed while reading, using a pooled input buffer.
+     *
+     * @param urlString the URL to fetch
+     * @param userAgent the user agent to send
+     * @param connectTimeout the maximum time to wait for the connection
+     * @param readTimeout the maximum time to wait for data
+     * @param pool the pool to borrow the buffers from
+     * @return the body of the response, which must be closed after use
+     * @throws HttpStatusException if the server responded with an error status
+     * @throws java.net.SocketTimeoutException if one of the timeouts elapsed
+     * @throws IOException if something goes bad
+     */
+    public static ResponseBody fetch(String urlString, String userAgent, Duration connectTimeout, Duration readTimeout,
+                                     BufferPool pool) throws IOException {
+        URLConnection urlConnection = new URL(urlString).openConnection();
+        urlConnection.setConnectTimeout((int) connectTimeout.toMillis());
+        urlConnection.setReadTimeout((int) readTimeout.toMillis());
+        urlConnection.setRequestProperty("User-Agent", userAgent);
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+
+        if (urlConnection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) urlConnection;
+            int statusCode = httpConnection.getResponseCode();
+
+            if (statusCode >= 400) {
+                discardErrorStream(httpConnection, pool);
+                throw new HttpStatusException(statusCode, urlString);
+            }
+        }
+
+        try (InputStream inputStream = urlConnection.getInputStream()) {
+            if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                try (InputStream gzipStream = new PooledGZIPInputStream(inputStream, pool)) {
+                    return ResponseBody.read(gzipStream, pool);
+                }
+            }
+
+            return ResponseBody.read(inputStream, pool);
+        }
+    }
+
+    /**
+     * Reads and closes the body of an error response, so the connection goes back to the keep-alive cache,
+     * instead of a new connection being opened for the next request while the server is overloaded.
+     * If the body cannot be read, the connection is dropped, the status is what matters to the caller.
+     */
+    private static void discardErrorStream(HttpURLConnection httpConnection, BufferPool pool) {
+        InputStream errorStream = httpConnection.getErrorStream();
+        if (errorStream == null) return;
+
+        ByteBuffer buffer = pool.acquire();
+        try (errorStream) {
+            while (errorStream.read(buffer.array(), buffer.arrayOffset(), buffer.capacity()) != -1) {
+                // Discarding
+            }
+        } catch (IOException e) {
+            httpConnection.disconnect();
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * {@link GZIPInputStream} reading the compressed data into a buffer borrowed from a {@link BufferPool},
+     * instead of allocating its own input buffer.
+     */
+    private static final class PooledGZIPInputStream extends GZIPInputStream {
+
+        private final BufferPool pool;
+        private final ByteBuffer buffer;
+        private boolean released = false;
+
+        private PooledGZIPInputStream(InputStream inputStream, BufferPool pool) throws IOException {
+            // The header is read straight from the stream, the buffer is only used for the compressed data after it
+            super(inputStream, 1);
+
+            this.pool = pool;
+            this.buffer = pool.acquire();
+            this.buf = buffer.array();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    pool.release(buffer);
+                }
+            }
+        }
+    }
 }
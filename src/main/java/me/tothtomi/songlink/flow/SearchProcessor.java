@@ -0,0 +1,274 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 TOTHTOMI
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.tothtomi.songlink.flow;
+
+import me.tothtomi.songlink.Songlink;
+import me.tothtomi.songlink.limit.LimitExceededException;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Flow.Processor} resolving a stream of URIs into {@link SearchResult}s, respecting the demand of the subscriber.
+ * <br /><br />
+ * At most {@code prefetch} URIs are requested from the upstream publisher ahead of the subscriber's demand,
+ * a new one is only requested once a result has been delivered. Cached tracks are resolved immediately.
+ * Failed searches are emitted as {@link SearchResult}s with the error, they do not terminate the stream.
+ * Searches rejected by the concurrency limiter are not failures, they are held back and retried after
+ * another search completes, so the throughput follows the limit.
+ * <br /><br />
+ * In ordered mode the results are emitted in the order of the URIs, otherwise as soon as they are resolved.
+ * Only a single subscriber is supported.
+ *
+ * @author TOTHTOMI
+ */
+public class SearchProcessor implements Flow.Processor<String, SearchResult> {
+
+    private static final long MIN_RETRY_DELAY = 10;
+
+    private final Songlink songlink;
+    private final int prefetch;
+    private final boolean ordered;
+
+    // Ordered: every search in order of arrival. Unordered: only the completed searches, in order of completion.
+    private final Queue<CompletableFuture<SearchResult>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // Searches rejected by the limiter, waiting to be retried
+    private final Queue<Runnable> deferred = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super SearchResult> downstream;
+    private volatile boolean upstreamDone = false;
+    private volatile Throwable upstreamError = null;
+    private volatile Throwable downstreamError = null;
+    private volatile boolean terminated = false;
+    private volatile boolean cancelled = false;
+
+    // Only accessed by drain(), so every call on the upstream subscription is made serially
+    private boolean started = false;
+    private boolean upstreamCancelled = false;
+
+    /**
+     * @param songlink the {@link Songlink} instance to search with
+     * @param prefetch the maximum amount of URIs being resolved at once
+     * @param ordered whether to keep the order of the URIs
+     */
+    public SearchProcessor(Songlink songlink, int prefetch, boolean ordered) {
+        if (prefetch < 1) throw new IllegalArgumentException("Prefetch must be at least 1.");
+
+        this.songlink = songlink;
+        this.prefetch = prefetch;
+        this.ordered = ordered;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super SearchResult> subscriber) {
+        synchronized (this) {
+            if (downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("SearchProcessor only supports a single subscriber."));
+                return;
+            }
+
+            downstream = subscriber;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    // Delivered by drain(), so it does not overlap with onNext
+                    downstreamError = new IllegalArgumentException("Requested amount must be positive.");
+                    drain();
+                    return;
+                }
+
+                requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                terminated = true;
+                cancelled = true;
+                drain();
+            }
+        });
+
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+
+        // Requesting, or cancelling if the subscriber already has, happens in drain()
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(String uri) {
+        if (terminated) return;
+        outstanding.incrementAndGet();
+
+        CompletableFuture<SearchResult> future = new CompletableFuture<>();
+
+        if (ordered) {
+            queue.offer(future);
+            future.thenRun(this::drain);
+        } else {
+            future.thenRun(() -> {
+                queue.offer(future);
+                drain();
+            });
+        }
+
+        search(uri, future);
+    }
+
+    private void search(String uri, CompletableFuture<SearchResult> future) {
+        active.incrementAndGet();
+
+        songlink.searchAsync(uri).whenComplete((track, throwable) -> {
+            Throwable error = unwrap(throwable);
+            active.decrementAndGet();
+
+            if (error instanceof LimitExceededException) {
+                if (terminated) return;
+                deferred.offer(() -> search(uri, future));
+
+                // Nothing of ours is in-flight to retry it on completion (the limit is used by others), polling instead
+                if (active.get() == 0) {
+                    long delay = Math.max(MIN_RETRY_DELAY, songlink.getLimiter().getAverageLatency());
+                    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(this::retryDeferred);
+                }
+                return;
+            }
+
+            future.complete(new SearchResult(uri, track, error));
+            retryDeferred();
+        });
+    }
+
+    private void retryDeferred() {
+        Runnable retry = deferred.poll();
+        if (retry != null && !terminated) retry.run();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        upstreamError = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * Emits the completed results while the subscriber has demand. Only one thread drains at a time,
+     * so the signals to the subscriber and the calls on the upstream subscription never overlap.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) return;
+
+        do {
+            Flow.Subscriber<? super SearchResult> subscriber = downstream;
+            Flow.Subscription subscription = upstream;
+
+            Throwable error = downstreamError;
+            if (!terminated && subscriber != null && error != null) {
+                terminated = true;
+                cancelled = true;
+                subscriber.onError(error);
+            }
+
+            if (cancelled) {
+                queue.clear();
+                deferred.clear();
+
+                if (subscription != null && !upstreamCancelled) {
+                    upstreamCancelled = true;
+                    subscription.cancel();
+                }
+            }
+
+            if (!started && !terminated && subscription != null && subscriber != null) {
+                started = true;
+                subscription.request(prefetch);
+            }
+
+            while (!terminated && subscriber != null) {
+                CompletableFuture<SearchResult> head = queue.peek();
+                if (head == null || !head.isDone() || requested.get() == 0) break;
+
+                queue.poll();
+                if (requested.get() != Long.MAX_VALUE) requested.decrementAndGet();
+                outstanding.decrementAndGet();
+
+                subscriber.onNext(head.join());
+
+                // Replenishing, so there are at most prefetch searches in progress
+                if (!upstreamDone) subscription.request(1);
+            }
+
+            if (!terminated && subscriber != null && upstreamDone && outstanding.get() == 0) {
+                terminated = true;
+
+                if (upstreamError != null) subscriber.onError(upstreamError);
+                else subscriber.onComplete();
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) return throwable.getCause();
+        return throwable;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 TOTHTOMI
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.tothtomi.songlink.flow;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import me.tothtomi.songlink.track.Track;
+
+import java.util.Optional;
+
+/**
+ * The result of a single search emitted by the {@link SearchProcessor}.
+ * Contains either the resulting {@link Track} or the error thrown, so one failing URI does not terminate the whole stream.
+ */
+@Data
+@RequiredArgsConstructor
+public class SearchResult {
+
+    private final String uri;
+    private final Track track; // Nullable
+    private final Throwable error; // Nullable
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public Optional<Track> getTrack() {
+        return Optional.ofNullable(track);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 TOTHTOMI
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.tothtomi.songlink.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive (AIMD) concurrency limiter for calls to Songlink's API.
+ * <br /><br />
+ * The allowed amount of in-flight requests is derived from the observed latency:
+ * while responses arrive close to the no-load latency, the limit is increased by one,
+ * when a response is much slower than that (or the request fails) the limit is multiplied by the backoff ratio,
+ * at most once per average round trip, so a single brownout does not collapse the limit to the minimum.
+ * <br /><br />
+ * The no-load latency is the minimum latency of the responses not classified as overloaded, over two
+ * rotating windows. Slow responses never raise it, so the limit stays low while the API stays slow.
+ * If no response is fast enough for two whole windows, the latency has shifted for good, and the
+ * next response becomes the new no-load latency.
+ * Requests over the limit are rejected immediately with a {@link LimitExceededException}, instead of piling up.
+ *
+ * @author TOTHTOMI
+ */
+public class ConcurrencyLimiter {
+
+    private static final double SMOOTHING = 0.05;
+    // Used as the round trip before any latency has been observed
+    private static final long MIN_DECREASE_WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long BASELINE_WINDOW = TimeUnit.SECONDS.toNanos(30);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double tolerance;
+
+    private final LongSupplier clock;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile int limit;
+    private double averageLatency = 0; // Guarded by this
+    private long lastDecrease = 0; // Guarded by this
+    private boolean decreased = false; // Guarded by this
+
+    private long windowStart; // Guarded by this
+    private double windowMinLatency = Double.MAX_VALUE; // Guarded by this
+    private double previousMinLatency = Double.MAX_VALUE; // Guarded by this
+
+    /**
+     * @param initialLimit the limit to start with
+     * @param minLimit the limit will never go below this
+     * @param maxLimit the limit will never go above this
+     * @param backoffRatio the ratio the limit is multiplied with when the API is overloaded (between 0 and 1)
+     * @param tolerance how many times slower than the no-load latency a response has to be to count as overloaded
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double tolerance) {
+        this(initialLimit, minLimit, maxLimit, backoffRatio, tolerance, System::nanoTime);
+    }
+
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double tolerance, LongSupplier clock) {
+        if (minLimit < 1 || maxLimit < minLimit)
+            throw new IllegalArgumentException("Invalid concurrency limit bounds.");
+        if (backoffRatio <= 0 || backoffRatio >= 1)
+            throw new IllegalArgumentException("Backoff ratio must be between 0 and 1.");
+        if (tolerance < 1)
+            throw new IllegalArgumentException("Tolerance must be at least 1.");
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.tolerance = tolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.clock = clock;
+        this.windowStart = clock.getAsLong();
+    }
+
+    /**
+     * Creates a limiter with sensible defaults, allowing at most the specified amount of in-flight requests.
+     *
+     * @param maxLimit the maximum amount of in-flight requests
+     * @return the limiter
+     */
+    public static ConcurrencyLimiter withMaximum(int maxLimit) {
+        return new ConcurrencyLimiter(Math.min(20, maxLimit), 1, maxLimit, 0.9, 2.0);
+    }
+
+    /**
+     * Reserves a slot for a new request. Must be followed by {@link #onSuccess(long)}, {@link #onDropped()} or {@link #onIgnored()}.
+     *
+     * @return the start time of the request, to be passed to {@link #onSuccess(long)}
+     * @throws LimitExceededException if the limit has been reached
+     */
+    public long acquire() throws LimitExceededException {
+        while (true) {
+            int current = inFlight.get();
+            int currentLimit = this.limit;
+            if (current >= currentLimit) throw new LimitExceededException(currentLimit);
+            if (inFlight.compareAndSet(current, current + 1)) return clock.getAsLong();
+        }
+    }
+
+    /**
+     * Releases the slot of a request that completed successfully, and adjusts the limit based on its latency.
+     *
+     * @param startTime the value returned by {@link #acquire()}
+     */
+    public void onSuccess(long startTime) {
+        long now = clock.getAsLong();
+        long latency = now - startTime;
+        int current = inFlight.getAndDecrement();
+
+        synchronized (this) {
+            if (averageLatency == 0) averageLatency = latency;
+
+            if (now - windowStart >= BASELINE_WINDOW) {
+                previousMinLatency = windowMinLatency;
+                windowMinLatency = Double.MAX_VALUE;
+                windowStart = now;
+            }
+
+            double baseline = Math.min(previousMinLatency, windowMinLatency);
+            if (baseline == Double.MAX_VALUE) baseline = latency;
+
+            if (latency > baseline * tolerance) {
+                // Overloaded samples are kept out of the baseline, otherwise it would follow the brownout
+                decrease();
+            } else {
+                windowMinLatency = Math.min(windowMinLatency, latency);
+
+                // Only grow when the limit is actually being used, otherwise it would grow without bounds
+                if (current * 2 >= limit) limit = Math.min(maxLimit, limit + 1);
+            }
+
+            averageLatency += (latency - averageLatency) * SMOOTHING;
+        }
+    }
+
+    /**
+     * Releases the slot of a request that failed (timed out, connection error, etc.) and decreases the limit.
+     */
+    public void onDropped() {
+        inFlight.decrementAndGet();
+
+        synchronized (this) {
+            decrease();
+        }
+    }
+
+    /**
+     * Releases the slot of a request that failed for a reason unrelated to the load of the API (ex. an invalid link),
+     * without changing the limit.
+     */
+    public void onIgnored() {
+        inFlight.decrementAndGet();
+    }
+
+    private void decrease() {
+        long now = clock.getAsLong();
+        // The requests in-flight during the same round trip all see the same overload, only backing off once for them
+        if (decreased && now - lastDecrease < Math.max(averageLatency, MIN_DECREASE_WINDOW)) return;
+
+        decreased = true;
+        lastDecrease = now;
+        limit = Math.max(minLimit, (int) (limit * backoffRatio));
+    }
+
+    /**
+     * @return the current limit of in-flight requests
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the amount of requests currently in-flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the no-load latency the responses are compared to, in milliseconds (0 if no latency has been observed yet)
+     */
+    public synchronized long getBaselineLatency() {
+        double baseline = Math.min(previousMinLatency, windowMinLatency);
+        return baseline == Double.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis((long) baseline);
+    }
+
+    /**
+     * @return the long-term average latency observed, in milliseconds
+     */
+    public synchronized long getAverageLatency() {
+        return TimeUnit.NANOSECONDS.toMillis((long) averageLatency);
+    }
+}
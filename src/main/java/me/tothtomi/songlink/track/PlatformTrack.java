@@ -30,6 +30,8 @@ import me.tothtomi.songlink.enums.APIProvider;
 import me.tothtomi.songlink.enums.Platform;
 import me.tothtomi.songlink.track.meta.Links;
 import me.tothtomi.songlink.track.meta.Metadata;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 @Data
 @RequiredArgsConstructor
@@ -42,4 +44,33 @@ public class PlatformTrack {
     private final APIProvider apiProvider;
     private final Platform[] platforms;
 
+    public static PlatformTrack fromJson(Platform platform, JSONObject jsonObject) {
+        Links links = Links.fromJsonObject(jsonObject.getJSONObject("links"));
+        Metadata metadata = Metadata.fromJson(jsonObject.getJSONObject("metadata"));
+        APIProvider apiProvider = APIProvider.fromId(jsonObject.getString("apiProvider"));
+
+        JSONArray array = jsonObject.getJSONArray("platforms");
+        Platform[] platforms = new Platform[array.length()];
+        for (int i = 0; i < platforms.length; i++) {
+            platforms[i] = Platform.valueOf(array.getString(i));
+        }
+
+        return new PlatformTrack(platform, links, metadata, apiProvider, platforms);
+    }
+
+    public JSONObject toJson() {
+        JSONArray array = new JSONArray();
+        for (Platform value : platforms) {
+            // Using the enum name, as platform ids are not unique
+            array.put(value.name());
+        }
+
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("links", links.toJson());
+        jsonObject.put("metadata", metadata.toJson());
+        jsonObject.put("apiProvider", apiProvider.getId());
+        jsonObject.put("platforms", array);
+
+        return jsonObject;
+    }
 }
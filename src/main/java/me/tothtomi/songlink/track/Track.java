@@ -29,7 +29,9 @@ import lombok.Data;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import me.tothtomi.songlink.enums.Platform;
+import org.json.JSONObject;
 
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Optional;
 
@@ -47,4 +49,57 @@ public class Track {
     public Optional<PlatformTrack> getPlatform(Platform platform) {
         return Optional.ofNullable(this.platforms.get(platform));
     }
+
+    /**
+     * Checks whether this track is the specified entity, either as a whole or on one of its platforms.
+     *
+     * @param entityUniqueId the id of the entity
+     * @return true if this track is the entity
+     */
+    public boolean isEntity(String entityUniqueId) {
+        if (this.entityUniqueId.equals(entityUniqueId)) return true;
+
+        for (PlatformTrack track : platforms.values()) {
+            if (track.getMetadata().getEntityUniqueId().equals(entityUniqueId)) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Restores a track from the compact form created by {@link #toJson()}.
+     *
+     * @param jsonObject the compact form
+     * @return the track
+     */
+    public static Track fromJson(JSONObject jsonObject) {
+        final Map<Platform, PlatformTrack> platforms = new EnumMap<>(Platform.class);
+        final JSONObject platformsObject = jsonObject.getJSONObject("platforms");
+
+        for (String key : platformsObject.keySet()) {
+            Platform platform = Platform.valueOf(key);
+            platforms.put(platform, PlatformTrack.fromJson(platform, platformsObject.getJSONObject(key)));
+        }
+
+        return new Track(jsonObject.getString("entityUniqueId"), jsonObject.getString("userCountry"),
+                jsonObject.getString("pageUrl"), platforms);
+    }
+
+    /**
+     * Serializes the track into a compact form, which can be restored with {@link #fromJson(JSONObject)}.
+     *
+     * @return the compact form
+     */
+    public JSONObject toJson() {
+        JSONObject platformsObject = new JSONObject();
+        platforms.forEach((platform, track) -> platformsObject.put(platform.name(), track.toJson()));
+
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("entityUniqueId", entityUniqueId);
+        jsonObject.put("userCountry", userCountry);
+        jsonObject.put("pageUrl", pageUrl);
+        jsonObject.put("platforms", platformsObject);
+
+        return jsonObject;
+    }
 }
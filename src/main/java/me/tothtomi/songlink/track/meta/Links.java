@@ -43,4 +43,13 @@ public class Links {
 
         return new Links(url, mobile, desktop);
     }
+
+    public JSONObject toJson() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("url", url);
+        jsonObject.putOpt("nativeAppUriMobile", mobileUri);
+        jsonObject.putOpt("nativeAppUriDesktop", desktopUri);
+
+        return jsonObject;
+    }
 }
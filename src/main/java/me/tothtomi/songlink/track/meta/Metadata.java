@@ -54,4 +54,21 @@ public class Metadata {
 
         return new Metadata(id, entityUniqueId, type, country, title, artist, thumbnail);
     }
+
+    public static Metadata fromJson(JSONObject jsonObject) {
+        return fromJson(jsonObject, jsonObject.getString("entityUniqueId"), jsonObject.getString("country"));
+    }
+
+    public JSONObject toJson() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("id", id);
+        jsonObject.put("entityUniqueId", entityUniqueId);
+        jsonObject.put("type", type.getId());
+        jsonObject.put("country", country);
+        jsonObject.put("title", title);
+        jsonObject.put("artistName", artistName);
+        thumbnail.toJson(jsonObject);
+
+        return jsonObject;
+    }
 }
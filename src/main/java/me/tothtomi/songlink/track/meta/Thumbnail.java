@@ -63,4 +63,10 @@ public class Thumbnail {
 
         return new Thumbnail(url, width, height);
     }
+
+    public void toJson(JSONObject jsonObject) {
+        jsonObject.put("thumbnailUrl", url);
+        jsonObject.put("thumbnailWidth", width);
+        jsonObject.put("thumbnailHeight", height);
+    }
 }
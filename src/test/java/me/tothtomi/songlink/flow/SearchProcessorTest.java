@@ -0,0 +1,299 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 TOTHTOMI
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.tothtomi.songlink.flow;
+
+import me.tothtomi.songlink.Songlink;
+import me.tothtomi.songlink.limit.ConcurrencyLimiter;
+import me.tothtomi.songlink.limit.LimitExceededException;
+import me.tothtomi.songlink.track.Track;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchProcessorTest {
+
+    /**
+     * Songlink returning the futures queued by the test, instead of calling the API.
+     */
+    private static final class FakeSonglink extends Songlink {
+
+        private final Map<String, Deque<CompletableFuture<Track>>> responses = new HashMap<>();
+        private final Map<String, Integer> calls = new HashMap<>();
+
+        private FakeSonglink() {
+            super("US", null, 10, Duration.ofMinutes(1), "test", ConcurrencyLimiter.withMaximum(10),
+                    Duration.ofSeconds(1), Duration.ofSeconds(1));
+        }
+
+        private CompletableFuture<Track> respond(String uri) {
+            CompletableFuture<Track> future = new CompletableFuture<>();
+            responses.computeIfAbsent(uri, u -> new ArrayDeque<>()).add(future);
+            return future;
+        }
+
+        @Override
+        public synchronized CompletableFuture<Track> searchAsync(String uri) {
+            calls.merge(uri, 1, Integer::sum);
+            return responses.get(uri).poll();
+        }
+    }
+
+    private static final class TestSubscription implements Flow.Subscription {
+
+        private long requested = 0;
+        private boolean cancelled = false;
+
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static final class TestSubscriber implements Flow.Subscriber<SearchResult> {
+
+        private final List<SearchResult> results = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private Throwable error = null;
+        private boolean completed = false;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(SearchResult item) {
+            results.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+        private List<String> uris() {
+            List<String> uris = new ArrayList<>();
+            for (SearchResult result : results) uris.add(result.getUri());
+
+            return uris;
+        }
+    }
+
+    private final FakeSonglink songlink = new FakeSonglink();
+    private final TestSubscription upstream = new TestSubscription();
+    private final TestSubscriber downstream = new TestSubscriber();
+
+    private SearchProcessor subscribe(int prefetch, boolean ordered) {
+        SearchProcessor processor = new SearchProcessor(songlink, prefetch, ordered);
+        processor.subscribe(downstream);
+        processor.onSubscribe(upstream);
+
+        return processor;
+    }
+
+    private static Track track(String id) {
+        return new Track(id, "US", "https://song.link/" + id, Collections.emptyMap());
+    }
+
+    @Test
+    void requestsPrefetchOnceSubscribed() {
+        SearchProcessor processor = new SearchProcessor(songlink, 3, true);
+        processor.onSubscribe(upstream);
+        assertEquals(0, upstream.requested);
+
+        processor.subscribe(downstream);
+        assertEquals(3, upstream.requested);
+    }
+
+    @Test
+    void respectsDemand() {
+        SearchProcessor processor = subscribe(3, true);
+        for (String uri : List.of("a", "b", "c")) {
+            songlink.respond(uri).complete(track(uri));
+            processor.onNext(uri);
+        }
+
+        assertTrue(downstream.results.isEmpty());
+
+        downstream.subscription.request(1);
+        assertEquals(List.of("a"), downstream.uris());
+        assertEquals(4, upstream.requested);
+
+        downstream.subscription.request(5);
+        assertEquals(List.of("a", "b", "c"), downstream.uris());
+        assertEquals(6, upstream.requested);
+    }
+
+    @Test
+    void orderedKeepsOrderOfUris() {
+        SearchProcessor processor = subscribe(2, true);
+        downstream.subscription.request(Long.MAX_VALUE);
+
+        CompletableFuture<Track> a = songlink.respond("a");
+        CompletableFuture<Track> b = songlink.respond("b");
+        processor.onNext("a");
+        processor.onNext("b");
+
+        b.complete(track("b"));
+        assertTrue(downstream.results.isEmpty());
+
+        a.complete(track("a"));
+        assertEquals(List.of("a", "b"), downstream.uris());
+    }
+
+    @Test
+    void unorderedEmitsOnCompletion() {
+        SearchProcessor processor = subscribe(2, false);
+        downstream.subscription.request(Long.MAX_VALUE);
+
+        CompletableFuture<Track> a = songlink.respond("a");
+        CompletableFuture<Track> b = songlink.respond("b");
+        processor.onNext("a");
+        processor.onNext("b");
+
+        b.complete(track("b"));
+        a.complete(track("a"));
+        assertEquals(List.of("b", "a"), downstream.uris());
+    }
+
+    @Test
+    void emitsFailuresAsResults() {
+        SearchProcessor processor = subscribe(2, true);
+        downstream.subscription.request(Long.MAX_VALUE);
+
+        songlink.respond("a").completeExceptionally(new IOException("failed"));
+        songlink.respond("b").complete(track("b"));
+        processor.onNext("a");
+        processor.onNext("b");
+
+        assertEquals(2, downstream.results.size());
+        assertFalse(downstream.results.get(0).isSuccess());
+        assertTrue(downstream.results.get(0).getError() instanceof IOException);
+        assertTrue(downstream.results.get(1).isSuccess());
+        assertNull(downstream.error);
+    }
+
+    @Test
+    void retriesRejectedSearchAfterCompletion() {
+        SearchProcessor processor = subscribe(2, true);
+        downstream.subscription.request(Long.MAX_VALUE);
+
+        CompletableFuture<Track> a = songlink.respond("a");
+        songlink.respond("b").completeExceptionally(new LimitExceededException(1));
+        CompletableFuture<Track> retried = songlink.respond("b");
+        processor.onNext("a");
+        processor.onNext("b");
+
+        assertEquals(1, songlink.calls.get("b"));
+
+        a.complete(track("a"));
+        assertEquals(2, songlink.calls.get("b"));
+
+        retried.complete(track("b"));
+        assertEquals(List.of("a", "b"), downstream.uris());
+        assertTrue(downstream.results.get(1).isSuccess());
+    }
+
+    @Test
+    void completesAfterOutstandingResults() {
+        SearchProcessor processor = subscribe(2, true);
+        downstream.subscription.request(Long.MAX_VALUE);
+
+        CompletableFuture<Track> a = songlink.respond("a");
+        processor.onNext("a");
+        processor.onComplete();
+        assertFalse(downstream.completed);
+
+        a.complete(track("a"));
+        assertEquals(List.of("a"), downstream.uris());
+        assertTrue(downstream.completed);
+    }
+
+    @Test
+    void propagatesUpstreamErrorAfterOutstandingResults() {
+        SearchProcessor processor = subscribe(2, true);
+        downstream.subscription.request(Long.MAX_VALUE);
+
+        CompletableFuture<Track> a = songlink.respond("a");
+        processor.onNext("a");
+        processor.onError(new IllegalStateException("upstream"));
+        assertNull(downstream.error);
+
+        a.complete(track("a"));
+        assertEquals(List.of("a"), downstream.uris());
+        assertTrue(downstream.error instanceof IllegalStateException);
+        assertFalse(downstream.completed);
+    }
+
+    @Test
+    void cancelStopsEmittingAndCancelsUpstream() {
+        SearchProcessor processor = subscribe(2, true);
+        downstream.subscription.request(Long.MAX_VALUE);
+
+        CompletableFuture<Track> a = songlink.respond("a");
+        processor.onNext("a");
+        downstream.subscription.cancel();
+        a.complete(track("a"));
+
+        assertTrue(upstream.cancelled);
+        assertTrue(downstream.results.isEmpty());
+        assertFalse(downstream.completed);
+    }
+
+    @Test
+    void nonPositiveRequestFailsStream() {
+        subscribe(2, true);
+        downstream.subscription.request(0);
+
+        assertTrue(downstream.error instanceof IllegalArgumentException);
+        assertTrue(upstream.cancelled);
+    }
+
+    @Test
+    void rejectsSecondSubscriber() {
+        SearchProcessor processor = subscribe(2, true);
+        TestSubscriber second = new TestSubscriber();
+        processor.subscribe(second);
+
+        assertTrue(second.error instanceof IllegalStateException);
+        assertNull(downstream.error);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 TOTHTOMI
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.tothtomi.songlink.limit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrencyLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private ConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new ConcurrencyLimiter(20, 1, 100, 0.9, 2.0, clock::get);
+    }
+
+    /**
+     * Simulates a round trip with the specified amount of concurrent requests, all taking the same time.
+     */
+    private void roundTrip(int concurrency, long latencyMillis) {
+        int count = Math.min(concurrency, limiter.getLimit());
+        long[] startTimes = new long[count];
+        for (int i = 0; i < count; i++) startTimes[i] = limiter.acquire();
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        for (long startTime : startTimes) limiter.onSuccess(startTime);
+    }
+
+    @Test
+    void rejectsOverLimit() {
+        for (int i = 0; i < 20; i++) limiter.acquire();
+
+        assertThrows(LimitExceededException.class, limiter::acquire);
+        assertEquals(20, limiter.getInFlight());
+    }
+
+    @Test
+    void increasesWhileLatencyIsStable() {
+        for (int i = 0; i < 10; i++) roundTrip(100, 100);
+
+        assertEquals(100, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(100, limiter.getBaselineLatency());
+    }
+
+    @Test
+    void doesNotIncreaseWhenUnused() {
+        for (int i = 0; i < 10; i++) roundTrip(5, 100);
+
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    void decreasesOncePerRoundTrip() {
+        for (int i = 0; i < 20; i++) limiter.acquire();
+        for (int i = 0; i < 20; i++) limiter.onDropped();
+
+        assertEquals(18, limiter.getLimit());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        limiter.acquire();
+        limiter.onDropped();
+
+        assertEquals(16, limiter.getLimit());
+    }
+
+    @Test
+    void ignoredDoesNotChangeLimit() {
+        limiter.acquire();
+        limiter.onIgnored();
+
+        assertEquals(20, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void staysLowUnderSustainedLatency() {
+        for (int i = 0; i < 10; i++) roundTrip(60, 100);
+        assertEquals(100, limiter.getLimit());
+
+        // 20 seconds of 10x latency, within the baseline window
+        for (int i = 0; i < 20; i++) {
+            roundTrip(60, 1000);
+            assertTrue(limiter.getLimit() < 100, "Limit recovered while latency was still high");
+        }
+
+        assertTrue(limiter.getLimit() <= 15);
+        assertEquals(100, limiter.getBaselineLatency());
+    }
+
+    @Test
+    void adoptsNewBaselineAfterPermanentShift() {
+        for (int i = 0; i < 10; i++) roundTrip(60, 100);
+
+        // Two whole baseline windows without a single fast response
+        for (int i = 0; i < 70; i++) roundTrip(60, 1000);
+        int lowered = limiter.getLimit();
+
+        for (int i = 0; i < 10; i++) roundTrip(60, 1000);
+
+        assertEquals(1000, limiter.getBaselineLatency());
+        assertTrue(limiter.getLimit() > lowered);
+    }
+}